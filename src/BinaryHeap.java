@@ -1,10 +1,26 @@
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class BinaryHeap {
 	
 	HeapElement[] elementsArray;
 	int size;
 	
+	// One bit per chunk of positions changed since the last publish, null unless
+	// snapshots are enabled
+	long[] dirtyChunks;
+	volatile HeapSnapshot published;
+	
 	/**
 	 * Construct a Binary Heap with a given capacity
 	 * @param capacity - the max size of the binary heap. must be bigger than 0
@@ -41,6 +57,7 @@ public class BinaryHeap {
 		
 		// add the heap at the end of array, and percolate it up
 		elementsArray[size] = val;
+		touch(size);
 		percUp(size);
 	}
 	
@@ -72,15 +89,9 @@ public class BinaryHeap {
 			throw new HeapException("Heap is empty");
 		}
 		
-		// Store the max heap to be deleted
-		HeapElement deletedMax = new HeapElement(elementsArray[1].key, elementsArray[1].data);
-		
-		// Replace the maximum element with the last one
-		elementsArray[1] = elementsArray[size];
-		
-		// Reduce size and percolate down 
-		size--;
-		percDown(1);	
+		// Store the max heap to be deleted, and replace it with the last one
+		HeapElement deletedMax = elementsArray[1];
+		delete(1);
 		
 		return deletedMax;
 	}
@@ -127,6 +138,7 @@ public class BinaryHeap {
 			throw new HeapException("Delta must be a positve nubmer");
 		}
 		elementsArray[index].key += delta;
+		touch(index);
 		percUp(index);
 	}
 	
@@ -147,24 +159,114 @@ public class BinaryHeap {
 			throw new HeapException("Delta must be a positve nubmer");
 		}
 		elementsArray[index].key -= delta;
+		touch(index);
 		percDown(index);
 	}
 	
 	/**
-	 * Deletes the key at the given index from the heap.
-	 * @param index
-	 * @throws HeapException 
+	 * Deletes the key at the given index from the heap, by moving the last
+	 * element into its place and percolating it up or down as needed.
+	 * @param index - of element to be deleted
+	 * @throws HeapException - if index is invalid
 	 */
 	public void delete (int index) {
 		
-		// First, increase the key to the maximum value
-		increaseKey(index, elementsArray[1].key + 1);
+		// Make sure index is valid
+		if (index < 1 || index > size) {
+			throw new HeapException("Invalid index");
+		}
 		
-		// Second, percolate it up
-		percUp(index);
+		// Take out the last element, and clear its slot
+		HeapElement last = elementsArray[size];
+		elementsArray[size] = null;
+		touch(size);
+		size--;
 		
-		// Finally, delete it
-		deleteMax();
+		// Unless the deleted element was the last, put the last one in its place
+		if (index <= size) {
+			elementsArray[index] = last;
+			touch(index);
+			if (index > 1 && elementsArray[index / 2].key < last.key) {
+				percUp(index);
+			} else {
+				percDown(index);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes every element matching a filter, compacting the array in one pass
+	 * and rebuilding the heap in linear time. If the filter throws, the elements
+	 * it already matched stay deleted and the rest are kept as a valid heap,
+	 * unlike ArrayList.removeIf, which leaves the list unchanged.
+	 * @param filter - returns true for elements to be deleted
+	 * @return the number of deleted elements
+	 */
+	public int removeIf (Predicate<HeapElement> filter) {
+		int before = size;
+		int kept = 0;
+		int i = 1;
+		try {
+			for (; i <= size; i++) {
+				HeapElement element = elementsArray[i];
+				if (!filter.test(element)) {
+					kept++;
+					if (kept != i) {
+						elementsArray[kept] = element;
+						touch(kept);
+					}
+				}
+			}
+		} finally {
+			
+			// If the filter threw, keep the elements it didn't get to
+			truncate(keepTail(kept, i));
+		}
+		return before - size;
+	}
+	
+	/**
+	 * Deletes every element whose key matches a filter, like removeIf. If the
+	 * filter throws, the elements it already matched stay deleted.
+	 * @param filter - returns true for keys of elements to be deleted
+	 * @return the number of deleted elements
+	 */
+	public int removeIfKey (final IntPredicate filter) {
+		return removeIf(new Predicate<HeapElement>() {
+			@Override
+			public boolean test(HeapElement element) {
+				return filter.test(element.key);
+			}
+		});
+	}
+	
+	/**
+	 * Moves the elements a filter hasn't been run on down next to the kept ones
+	 * @param kept - the number of elements kept so far
+	 * @param next - the index of the first element the filter wasn't run on
+	 * @return the number of elements to keep, the moved ones included
+	 */
+	int keepTail (int kept, int next) {
+		for (int i = next; i <= size; i++) {
+			kept++;
+			if (kept != i) {
+				elementsArray[kept] = elementsArray[i];
+				touch(kept);
+			}
+		}
+		return kept;
+	}
+	
+	/**
+	 * Cuts the heap down to the elements compacted to its start and rebuilds it
+	 * @param kept - the number of elements to keep
+	 */
+	void truncate (int kept) {
+		if (kept < size) {
+			Arrays.fill(elementsArray, kept + 1, size + 1, null);
+			size = kept;
+			heapify();
+		}
 	}
 	
 	/**
@@ -182,15 +284,22 @@ public class BinaryHeap {
 		
 		// Initialize size
 		heap.size = elements.length;
+		heap.heapify();
+		return heap;
+		
+	}
+	
+	/**
+	 * Arranges the whole array as a heap in linear time
+	 */
+	void heapify () {
 		
 		// sort the elements starting in the middle of the heap and go upwards 
-		for (int i = (heap.size / 2) ; i > 0; i--) {
+		for (int i = (size / 2) ; i > 0; i--) {
 			
 			// Percolate down each element
-			heap.percDown(i);
+			percDown(i);
 		}
-		return heap;
-		
 	}
 		
 	/**
@@ -223,7 +332,7 @@ public class BinaryHeap {
 		
 		StringBuilder sb = new StringBuilder();
 		for (int i = 1; i <= size; i++) {
-			sb.append(elementsArray[i].key + ", ");
+			sb.append(elementsArray[i].key).append(", ");
 		}
 		
 		// Make sure it's not an empty heap
@@ -236,6 +345,196 @@ public class BinaryHeap {
 		
 	}
 	
+	/**
+	 * Returns an iterator over the elements in descending key order, without
+	 * modifying the heap. Elements are produced lazily from a small frontier of
+	 * array positions, so the first k elements cost O(k log k).
+	 * The heap must not be modified while iterating.
+	 * 
+	 * @return an iterator from the maximum element down to the minimum
+	 */
+	public Iterator<HeapElement> sortedIterator() {
+		return new SortedHeapIterator(size) {
+			@Override
+			HeapElement elementAt(int position) {
+				return elementsArray[position];
+			}
+		};
+	}
+	
+	/**
+	 * Returns a spliterator over the elements in descending key order.
+	 * It can only split by buffering batches of the sorted walk, so prefer
+	 * {@link #spliterator()} for parallel traversal.
+	 * 
+	 * @return an ordered spliterator over the heap
+	 */
+	public Spliterator<HeapElement> sortedSpliterator() {
+		return Spliterators.spliterator(sortedIterator(), size, 
+				Spliterator.ORDERED | Spliterator.NONNULL);
+	}
+	
+	/**
+	 * Returns an unordered spliterator over the backing array.
+	 * It splits evenly, so it can be used for parallel bulk traversal.
+	 * 
+	 * @return an unordered spliterator over the heap
+	 */
+	public Spliterator<HeapElement> spliterator() {
+		return Spliterators.spliterator(elementsArray, 1, size + 1, Spliterator.NONNULL);
+	}
+	
+	/**
+	 * Returns a stream of the elements in descending key order.
+	 * 
+	 * @return a sequential, ordered stream over the heap
+	 */
+	public Stream<HeapElement> sortedStream() {
+		return StreamSupport.stream(sortedSpliterator(), false);
+	}
+	
+	/**
+	 * Returns a stream of the elements in heap (array) order.
+	 * @param parallel - true for a parallel stream
+	 * @return a stream over the heap
+	 */
+	public Stream<HeapElement> stream(boolean parallel) {
+		return StreamSupport.stream(spliterator(), parallel);
+	}
+	
+	/**
+	 * Writes the heap to a channel in a compact binary format: a header, then
+	 * the delta encoded keys in heap order, each followed by its encoded data.
+	 * @param channel - the channel to write to
+	 * @param codec - the codec for the elements' data
+	 * @throws IOException - if writing to the channel fails
+	 */
+	public void writeTo(WritableByteChannel channel, PayloadCodec codec) throws IOException {
+		new HeapSerializer().write(this, channel, codec);
+	}
+	
+	/**
+	 * Reads a heap written by writeTo. The elements keep their heap order,
+	 * so no buildHeap is needed. Nothing after the heap is read from the channel.
+	 * Heaps with a capacity above 2^24 are refused.
+	 * @param channel - the channel to read from
+	 * @param codec - the codec the heap was written with
+	 * @return the heap, with the capacity it was written with
+	 * @throws IOException - if reading fails or the data is not a valid heap
+	 */
+	public static BinaryHeap readFrom(ReadableByteChannel channel, PayloadCodec codec) throws IOException {
+		return readFrom(channel, codec, HeapSerializer.DEFAULT_MAX_CAPACITY);
+	}
+	
+	/**
+	 * Reads a heap written by writeTo, refusing capacities above a limit
+	 * before allocating anything.
+	 * @param channel - the channel to read from
+	 * @param codec - the codec the heap was written with
+	 * @param maxCapacity - the largest capacity to accept
+	 * @return the heap, with the capacity it was written with
+	 * @throws IOException - if reading fails or the data is not a valid heap
+	 */
+	public static BinaryHeap readFrom(ReadableByteChannel channel, PayloadCodec codec, int maxCapacity) 
+			throws IOException {
+		return new HeapSerializer().read(channel, codec, maxCapacity);
+	}
+	
+	/**
+	 * Starts tracking changes so that a single writer can publish immutable
+	 * snapshots for lock free readers, and publishes the first one.
+	 * Keys must then only be changed through the heap's own methods.
+	 * 
+	 * @return the first snapshot
+	 */
+	public HeapSnapshot enableSnapshots() {
+		int chunks = (elementsArray.length + HeapSnapshot.CHUNK_MASK) >>> HeapSnapshot.CHUNK_SHIFT;
+		dirtyChunks = new long[(chunks + 63) >>> 6];
+		
+		// Every chunk is dirty against the empty chunk table
+		for (int i = 0; i < chunks; i++) {
+			dirtyChunks[i >>> 6] |= 1L << i;
+		}
+		
+		// Start from an empty version that is never published itself
+		return publishSnapshot(new HeapSnapshot(new HeapElement[chunks][], 0, 0));
+	}
+	
+	/**
+	 * Publishes the current state of the heap as a new snapshot. Only the chunks
+	 * changed since the last publish are copied, the rest are shared.
+	 * Must be called by the writer.
+	 * 
+	 * @return the published snapshot
+	 * @throws HeapException if snapshots are not enabled
+	 */
+	public HeapSnapshot publishSnapshot() {
+		if (dirtyChunks == null) {
+			throw new HeapException("Snapshots are not enabled");
+		}
+		return publishSnapshot(published);
+	}
+	
+	/**
+	 * Publishes the current state of the heap as the version after a given one,
+	 * copying the dirty chunks and sharing the rest of its chunk table
+	 * @param previous - the snapshot the dirty chunks were tracked against
+	 * @return the published snapshot
+	 */
+	HeapSnapshot publishSnapshot(HeapSnapshot previous) {
+		HeapElement[][] chunks = previous.chunks.clone();
+		
+		// Copy every dirty chunk, skipping chunks that are entirely past the end
+		for (int word = 0; word < dirtyChunks.length; word++) {
+			long bits = dirtyChunks[word];
+			while (bits != 0) {
+				int chunk = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int start = chunk << HeapSnapshot.CHUNK_SHIFT;
+				int end = Math.min(start + HeapSnapshot.CHUNK_SIZE, size + 1);
+				if (start > size) {
+					chunks[chunk] = null;
+					continue;
+				}
+				HeapElement[] copy = new HeapElement[HeapSnapshot.CHUNK_SIZE];
+				for (int i = Math.max(start, 1); i < end; i++) {
+					copy[i - start] = new HeapElement(elementsArray[i].key, elementsArray[i].data);
+				}
+				chunks[chunk] = copy;
+			}
+			dirtyChunks[word] = 0;
+		}
+		HeapSnapshot next = new HeapSnapshot(chunks, size, previous.version + 1);
+		published = next;
+		return next;
+	}
+	
+	/**
+	 * Returns the last published snapshot. Safe to call from any thread
+	 * without locking.
+	 * 
+	 * @return the last published snapshot
+	 * @throws HeapException if snapshots are not enabled
+	 */
+	public HeapSnapshot snapshot() {
+		HeapSnapshot current = published;
+		if (current == null) {
+			throw new HeapException("Snapshots are not enabled");
+		}
+		return current;
+	}
+	
+	/**
+	 * Marks the chunk holding a position as changed, when snapshots are enabled
+	 * @param index - the changed position
+	 */
+	void touch(int index) {
+		if (dirtyChunks != null) {
+			int chunk = index >>> HeapSnapshot.CHUNK_SHIFT;
+			dirtyChunks[chunk >>> 6] |= 1L << chunk;
+		}
+	}
+	
 	/**
 	 * Percolate up an element
 	 * @param index - the index of the element to be percolated
@@ -244,18 +543,20 @@ public class BinaryHeap {
 	public void percUp(int index) {
 		
 		// Save the element to be percolate
-		HeapElement val = new HeapElement(elementsArray[index].key, elementsArray[index].data);
+		HeapElement val = elementsArray[index];
 		
 		// As long as percolating have'nt reach the top, or to a bigger value
-		while (index > 1 && elementsArray[index / 2].key <= val.key) {		
+		while (index > 1 && elementsArray[index / 2].key < val.key) {		
 
-			// Swap elements
+			// Move the parent down into the hole
 			elementsArray[index] = elementsArray[index / 2];
-			elementsArray[index / 2] = val;
+			touch(index);
 			
 			// Divide index and keep percolating
 			index = index / 2; 
 		}
+		elementsArray[index] = val;
+		touch(index);
 	}
 	
 	/**
@@ -267,38 +568,32 @@ public class BinaryHeap {
 		int index1 = index * 2;
 		int index2 = index * 2 + 1;
 	
-		// Store an element for the swap
-		HeapElement temp = new HeapElement(elementsArray[index].key, elementsArray[index].data);
-		
-		// For corner case of heap smaller than 3
-		if (size < 3 && elementsArray[index].key < elementsArray[index1].key) {
-			elementsArray[index] = elementsArray[index1];
-			elementsArray[index1] = temp;
-			return;
-		}
+		// Store the element to be percolated
+		HeapElement temp = elementsArray[index];
 		
-		// while percolating down haven't reached the end of the heap
-		while (index2 <= size) {
+		// while the element still has at least one child inside the heap
+		while (index1 <= size) {
 
-			// Check which element is smaller and conduct the swap accordingly 
-			if (elementsArray[index1].key >= elementsArray[index2].key && 
-					(elementsArray[index].key < elementsArray[index1].key)) {
-				elementsArray[index] = elementsArray[index1];
-				elementsArray[index1] = temp;
-				index = index1;
-				index1 = index * 2;
-				index2 = index * 2 + 1;
-			} else if (elementsArray[index2].key > elementsArray[index1].key && 
-					(elementsArray[index].key < elementsArray[index2].key)) {
-				elementsArray[index] = elementsArray[index2];
-				elementsArray[index2] = temp;
-				index = index2;
-				index1 = index * 2;
-				index2 = index * 2 + 1;
-			} else {
+			// Pick the bigger child (the right one may not exist)
+			int child = index1;
+			if (index2 <= size && elementsArray[index2].key > elementsArray[index1].key) {
+				child = index2;
+			}
+			
+			// Stop once the element is not smaller than its bigger child
+			if (temp.key >= elementsArray[child].key) {
 				break;
 			}
+			
+			// Move the child up into the hole
+			elementsArray[index] = elementsArray[child];
+			touch(index);
+			index = child;
+			index1 = index * 2;
+			index2 = index * 2 + 1;
 		}
+		elementsArray[index] = temp;
+		touch(index);
 	}
 	
 	/**
@@ -1,5 +1,20 @@
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -196,4 +211,357 @@ public class BinaryHeapTest {
 		// Test an empty heap
 		assertEquals("", empty.toString());
 	}
+	
+	@Test
+	public void sortedIteratorTest() {
+		Iterator<HeapElement> it = heap.sortedIterator();
+		HeapElement last = it.next();
+		assertEquals(87, last.getKey());
+		int count = 1;
+		while (it.hasNext()) {
+			HeapElement current = it.next();
+			if (current.getKey() > last.getKey()) {
+				fail("Iterator is not sorted");
+			}
+			last = current;
+			count++;
+		}
+		assertEquals(keys.length, count);
+		
+		// The heap itself should be untouched
+		validateHeap(heap, keys.length);
+	}
+	
+	@Test (expected = NoSuchElementException.class)
+	public void sortedIteratorEmptyTest() {
+		assertFalse(empty.sortedIterator().hasNext());
+		empty.sortedIterator().next();
+	}
+	
+	@Test
+	public void sortedStreamTest() {
+		assertEquals(87 + 25 + 19, heap.sortedStream().limit(3).mapToInt(HeapElement::getKey).sum());
+		assertEquals(keys.length, heap.sortedStream().count());
+	}
+	
+	@Test
+	public void parallelStreamTest() {
+		int sum = 0;
+		for (int key : keys) {
+			sum += key;
+		}
+		assertEquals(sum, heap.stream(true).mapToInt(HeapElement::getKey).sum());
+		assertEquals(0, empty.stream(true).count());
+	}
+	
+	@Test
+	public void spliteratorCharacteristicsTest() {
+		Spliterator<HeapElement> spliterator = heap.spliterator();
+		assertFalse(spliterator.hasCharacteristics(Spliterator.ORDERED));
+		assertFalse(spliterator.hasCharacteristics(Spliterator.IMMUTABLE));
+		assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+		assertEquals(keys.length, spliterator.estimateSize());
+		assertTrue(heap.sortedSpliterator().hasCharacteristics(Spliterator.ORDERED));
+	}
+	
+	@Test
+	public void snapshotTest() {
+		HeapSnapshot first = heap.enableSnapshots();
+		assertSame(first, heap.snapshot());
+		assertEquals(1, first.getVersion());
+		assertEquals(87, first.findMax().getKey());
+		assertEquals(keys.length, first.size());
+		
+		heap.deleteMax();
+		heap.increaseKey(heap.size, 100);
+		
+		// Readers keep seeing the published version until the next publish
+		assertSame(first, heap.snapshot());
+		assertEquals(87, first.findMax().getKey());
+		
+		HeapSnapshot second = heap.publishSnapshot();
+		assertEquals(first.getVersion() + 1, second.getVersion());
+		assertEquals(keys.length - 1, second.size());
+		assertEquals(heap.findMax().getKey(), second.findMax().getKey());
+		assertEquals(87, first.findMax().getKey());
+		
+		// Sorted walks of both versions are consistent
+		int count = 0;
+		Iterator<HeapElement> it = first.sortedIterator();
+		int last = Integer.MAX_VALUE;
+		while (it.hasNext()) {
+			int key = it.next().getKey();
+			assertTrue(key <= last);
+			last = key;
+			count++;
+		}
+		assertEquals(keys.length, count);
+	}
+	
+	@Test
+	public void snapshotSharesCleanChunksTest() {
+		BinaryHeap other = new BinaryHeap(1000);
+		for (int i = 0; i < 1000; i++) {
+			other.insert(new HeapElement(i, "data"));
+		}
+		HeapSnapshot first = other.enableSnapshots();
+		other.deleteMax();
+		HeapSnapshot second = other.publishSnapshot();
+		
+		// Only the chunks on the percolation path were copied
+		int shared = 0;
+		for (int i = 0; i < first.chunks.length; i++) {
+			if (first.chunks[i] == second.chunks[i]) {
+				shared++;
+			}
+		}
+		assertTrue("Expected most chunks to be shared", shared > first.chunks.length / 2);
+		
+		Iterator<HeapElement> it = second.sortedIterator();
+		for (int i = 998; i >= 0; i--) {
+			assertEquals(i, it.next().getKey());
+		}
+		assertFalse(it.hasNext());
+	}
+	
+	@Test (expected = HeapException.class)
+	public void snapshotNotEnabledTest() {
+		heap.snapshot();
+	}
+	
+	/**
+	 * Writes a heap and reads it back through in memory channels
+	 */
+	public BinaryHeap copy(BinaryHeap binHeap, PayloadCodec codec) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		binHeap.writeTo(Channels.newChannel(out), codec);
+		return BinaryHeap.readFrom(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), codec);
+	}
+	
+	@Test
+	public void serializeTest() throws IOException {
+		BinaryHeap other = new BinaryHeap(1000);
+		for (int i = 0; i < 900; i++) {
+			int key = (i % 3 == 0) ? Integer.MIN_VALUE + i : Integer.MAX_VALUE - i;
+			other.insert(new HeapElement(key, (i % 5 == 0) ? null : "data \u00e9\ud83d\ude00 " + i));
+		}
+		BinaryHeap read = copy(other, PayloadCodec.UTF8);
+		assertEquals(1000, read.elementsArray.length - 1);
+		assertEquals(other.toString(), read.toString());
+		for (int i = 1; i <= other.size; i++) {
+			assertEquals(other.elementsArray[i].getData(), read.elementsArray[i].getData());
+		}
+		validateHeap(read, 900);
+	}
+	
+	@Test
+	public void serializeLargePayloadTest() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		BinaryHeap other = new BinaryHeap(2);
+		other.insert(new HeapElement(1, sb.toString()));
+		other.insert(new HeapElement(2, "small"));
+		BinaryHeap read = copy(other, PayloadCodec.UTF8);
+		assertEquals("small", read.deleteMax().getData());
+		assertEquals(sb.toString(), read.deleteMax().getData());
+	}
+	
+	@Test
+	public void serializeKeysOnlyTest() throws IOException {
+		BinaryHeap read = copy(heap, PayloadCodec.NONE);
+		assertEquals(heap.toString(), read.toString());
+		assertNull(read.findMax().getData());
+		validateHeap(copy(empty, PayloadCodec.NONE), 0);
+	}
+	
+	@Test
+	public void serializeBackToBackTest() throws IOException {
+		BinaryHeap other = new BinaryHeap(3);
+		other.insert(new HeapElement(5, "five"));
+		other.insert(new HeapElement(6, null));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WritableByteChannel writer = Channels.newChannel(out);
+		heap.writeTo(writer, PayloadCodec.UTF8);
+		other.writeTo(writer, PayloadCodec.UTF8);
+		out.write(42);
+		
+		// Each read stops at the end of its own heap
+		InputStream in = new ByteArrayInputStream(out.toByteArray());
+		ReadableByteChannel reader = Channels.newChannel(in);
+		assertEquals(heap.toString(), BinaryHeap.readFrom(reader, PayloadCodec.UTF8).toString());
+		BinaryHeap second = BinaryHeap.readFrom(reader, PayloadCodec.UTF8);
+		assertEquals("6, 5", second.toString());
+		assertEquals("five", second.elementsArray[2].getData());
+		assertEquals(42, in.read());
+	}
+	
+	@Test
+	public void utf8CodecTest() {
+		String[] texts = {"", "plain", "\u00e9\u20ac\ud83d\ude00", "lone \ud83d high", "lone \ude00 low", "end \ud83d"};
+		for (String text : texts) {
+			byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+			assertEquals(expected.length, PayloadCodec.UTF8.encodedSize(text));
+			ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+			PayloadCodec.UTF8.encode(text, buffer);
+			assertTrue(Arrays.equals(expected, buffer.array()));
+		}
+	}
+	
+	/**
+	 * Returns a channel over a heap header with the given capacity, size and body,
+	 * framed the way writeTo frames it
+	 */
+	public ReadableByteChannel corruptHeap(int capacity, int size, byte... body) {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.putInt(HeapSerializer.MAGIC);
+		int start = buffer.position();
+		buffer.putInt(0);
+		buffer.put(HeapSerializer.VERSION).put((byte) 0);
+		for (int value : new int[] {capacity, size}) {
+			while ((value & ~0x7F) != 0) {
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+		buffer.put(body);
+		buffer.putInt(start, buffer.position() - start - 4);
+		buffer.putInt(0);
+		return Channels.newChannel(new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+	}
+	
+	@Test
+	public void serializeCorruptCapacityTest() throws IOException {
+		for (int capacity : new int[] {Integer.MAX_VALUE, -1, 1 << 30}) {
+			try {
+				BinaryHeap.readFrom(corruptHeap(capacity, 0), PayloadCodec.NONE);
+				fail("Capacity " + capacity + " should be refused");
+			} catch (StreamCorruptedException e) {
+				// This is expected
+			}
+		}
+		assertEquals(100, BinaryHeap.readFrom(corruptHeap(100, 0), PayloadCodec.NONE, 100).elementsArray.length - 1);
+	}
+	
+	@Test (expected = StreamCorruptedException.class)
+	public void serializeNegativePayloadLengthTest() throws IOException {
+		
+		// Key 0, then a payload length varint of 0xFFFFFFFF
+		BinaryHeap.readFrom(corruptHeap(1, 1, (byte) 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x0F), 
+				PayloadCodec.NONE);
+	}
+	
+	@Test (expected = StreamCorruptedException.class)
+	public void serializeHugePayloadLengthTest() throws IOException {
+		
+		// Key 0, then a payload length varint of 0x7FFFFFF1, with no frame of that size
+		BinaryHeap.readFrom(corruptHeap(1, 1, (byte) 0, (byte) 0xF1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x07), 
+				PayloadCodec.UTF8);
+	}
+	
+	@Test (expected = StreamCorruptedException.class)
+	public void serializeLongPayloadInBufferTest() throws IOException {
+		
+		// A payload too long for the buffer, but sharing a frame with the bytes before it
+		BinaryHeap.readFrom(corruptHeap(1, 1, (byte) 0, (byte) 0xFE, (byte) 0x3F, (byte) 'a'), PayloadCodec.UTF8);
+	}
+	
+	@Test (expected = StreamCorruptedException.class)
+	public void serializeWrongCodecTest() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		heap.writeTo(Channels.newChannel(out), PayloadCodec.NONE);
+		BinaryHeap.readFrom(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), PayloadCodec.UTF8);
+	}
+	
+	@Test
+	public void deleteLargeKeysTest() {
+		BinaryHeap other = new BinaryHeap(4);
+		other.insert(new HeapElement(Integer.MAX_VALUE, "data"));
+		other.insert(new HeapElement(Integer.MAX_VALUE - 1, "data"));
+		other.insert(new HeapElement(0, "data"));
+		other.insert(new HeapElement(5, "data"));
+		other.delete(3);
+		assertEquals(3, other.size);
+		validateHeap(other, 3);
+	}
+	
+	@Test
+	public void deletePercolatesUpTest() {
+		// The last element (50) replaces a deleted leaf of another subtree, and must go up
+		HeapElement[] elements = {
+				new HeapElement(100, "data"), new HeapElement(90, "data"), new HeapElement(40, "data"),
+				new HeapElement(80, "data"), new HeapElement(85, "data"), new HeapElement(10, "data"),
+				new HeapElement(20, "data"), new HeapElement(70, "data"), new HeapElement(75, "data"),
+				new HeapElement(50, "data")};
+		BinaryHeap other = BinaryHeap.buildHeap(elements);
+		other.delete(7);
+		assertEquals(50, other.elementsArray[3].getKey());
+		validateHeap(other, elements.length - 1);
+	}
+	
+	@Test
+	public void removeIfTest() {
+		assertEquals(3, heap.removeIf(element -> element.getKey() < 5));
+		assertEquals(keys.length - 3, heap.size);
+		assertEquals(87, heap.findMax().getKey());
+		assertNull(heap.elementsArray[keys.length]);
+		validateHeap(heap, keys.length - 3);
+	}
+	
+	@Test
+	public void removeIfKeysTest() {
+		BinaryHeap other = new BinaryHeap(1000);
+		for (int i = 0; i < 1000; i++) {
+			other.insert(new HeapElement(i, null));
+		}
+		assertEquals(500, other.removeIfKey(key -> key % 2 == 0));
+		assertEquals(0, other.removeIfKey(key -> key % 2 == 0));
+		Iterator<HeapElement> it = other.sortedIterator();
+		for (int i = 999; i > 0; i -= 2) {
+			assertEquals(i, it.next().getKey());
+		}
+		assertFalse(it.hasNext());
+		assertEquals(500, other.removeIfKey(key -> true));
+		validateHeap(other, 0);
+	}
+	
+	@Test
+	public void removeIfThrowsTest() {
+		BinaryHeap other = new BinaryHeap(10);
+		for (int i = 0; i < 10; i++) {
+			other.insert(new HeapElement(i, null));
+		}
+		try {
+			other.removeIfKey(key -> {
+				if (key == 3) {
+					throw new IllegalStateException();
+				}
+				return key % 2 == 0;
+			});
+			fail("The filter's exception should be thrown");
+		} catch (IllegalStateException e) {
+			// This is expected
+		}
+		
+		// Only even keys the filter accepted before throwing are gone, nothing is duplicated
+		int removed = 10 - other.size;
+		assertTrue(removed > 0);
+		int[] seen = new int[10];
+		Iterator<HeapElement> it = other.sortedIterator();
+		while (it.hasNext()) {
+			seen[it.next().getKey()]++;
+		}
+		int missing = 0;
+		for (int key = 0; key < 10; key++) {
+			assertTrue("Key " + key + " is duplicated", seen[key] <= 1);
+			if (seen[key] == 0) {
+				assertEquals("Odd key " + key + " was lost", 0, key % 2);
+				missing++;
+			}
+		}
+		assertEquals(removed, missing);
+		validateHeap(other, 10 - removed);
+	}
 }
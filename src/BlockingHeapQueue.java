@@ -0,0 +1,252 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A blocking priority queue over a binary heap, serving the max element first.
+ * It waits on a ReentrantLock's conditions rather than monitors, so waiting
+ * virtual threads don't pin their carrier threads. Every inserted element wakes
+ * exactly one waiting consumer, and every removed element exactly one waiting
+ * producer, so a burst of N inserts wakes at most N consumers.
+ */
+public class BlockingHeapQueue {
+
+	final BinaryHeap heap;
+	final ReentrantLock lock = new ReentrantLock();
+	final Condition notEmpty = lock.newCondition();
+	final Condition notFull = lock.newCondition();
+
+	/**
+	 * Construct a queue with a given capacity
+	 * @param capacity - the max number of elements. must not be negative
+	 * @throws HeapException - If capacity is negative
+	 */
+	public BlockingHeapQueue (int capacity) {
+		this(new BinaryHeap(capacity));
+	}
+
+	/**
+	 * Construct a queue over an existing heap, which must only be used through
+	 * the queue from now on
+	 * @param heap - the heap holding the elements
+	 */
+	public BlockingHeapQueue (BinaryHeap heap) {
+		this.heap = heap;
+	}
+
+	/**
+	 * Inserts an element, waiting for room if the queue is full
+	 * @param val - the element to be added
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public void put (HeapElement val) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (isFull()) {
+				notFull.await();
+			}
+			insert(val);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Inserts an element if there is room
+	 * @param val - the element to be added
+	 * @return true if added, false if the queue is full
+	 */
+	public boolean offer (HeapElement val) {
+		lock.lock();
+		try {
+			if (isFull()) {
+				return false;
+			}
+			insert(val);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Inserts an element, waiting up to a timeout for room if the queue is full
+	 * @param val - the element to be added
+	 * @param timeout - how long to wait
+	 * @param unit - the unit of timeout
+	 * @return true if added, false if the timeout passed first
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public boolean offer (HeapElement val, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (isFull()) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			insert(val);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the max element, waiting for one if the queue is empty
+	 * @return the max element
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public HeapElement take () throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (heap.isEmpty()) {
+				notEmpty.await();
+			}
+			return deleteMax();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the max element if there is one
+	 * @return the max element, or null if the queue is empty
+	 */
+	public HeapElement poll () {
+		lock.lock();
+		try {
+			return heap.isEmpty() ? null : deleteMax();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the max element, waiting up to a timeout for one if the queue is empty
+	 * @param timeout - how long to wait
+	 * @param unit - the unit of timeout
+	 * @return the max element, or null if the timeout passed first
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public HeapElement poll (long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (heap.isEmpty()) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return deleteMax();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits up to a timeout for at least one element, then removes up to max
+	 * elements in descending order under a single lock acquisition
+	 * @param max - the max number of elements to remove
+	 * @param timeout - how long to wait for the first element
+	 * @param unit - the unit of timeout
+	 * @return the removed elements, empty if the timeout passed first
+	 * @throws InterruptedException - if interrupted while waiting
+	 * @throws HeapException - if max isn't positive
+	 */
+	public List<HeapElement> takeBatch (int max, long timeout, TimeUnit unit) throws InterruptedException {
+		if (max < 1) {
+			throw new HeapException("Batch size must be a positive number");
+		}
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (heap.isEmpty()) {
+				if (nanos <= 0) {
+					return new ArrayList<HeapElement>(0);
+				}
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			int count = Math.min(max, heap.size);
+			List<HeapElement> batch = new ArrayList<HeapElement>(count);
+			for (int i = 0; i < count; i++) {
+				batch.add(deleteMax());
+			}
+			return batch;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the max element without removing it
+	 * @return the max element, or null if the queue is empty
+	 */
+	public HeapElement peek () {
+		lock.lock();
+		try {
+			return heap.isEmpty() ? null : heap.findMax();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of elements in the queue
+	 * @return size
+	 */
+	public int size () {
+		lock.lock();
+		try {
+			return heap.size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns how many more elements fit in the queue
+	 * @return the remaining capacity
+	 */
+	public int remainingCapacity () {
+		lock.lock();
+		try {
+			return heap.elementsArray.length - 1 - heap.size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks whether the heap is full. Must hold the lock.
+	 * @return true if full
+	 */
+	boolean isFull () {
+		return heap.size + 1 >= heap.elementsArray.length;
+	}
+
+	/**
+	 * Inserts an element and wakes one consumer for it. Must hold the lock.
+	 * @param val - the element to be added
+	 */
+	void insert (HeapElement val) {
+		heap.insert(val);
+		notEmpty.signal();
+	}
+
+	/**
+	 * Removes the max element and wakes one producer for the freed room.
+	 * Must hold the lock.
+	 * @return the max element
+	 */
+	HeapElement deleteMax () {
+		HeapElement max = heap.deleteMax();
+		notFull.signal();
+		return max;
+	}
+}
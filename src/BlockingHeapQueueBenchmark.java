@@ -0,0 +1,96 @@
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the latency from a producer's insert into a BlockingHeapQueue to
+ * a waiting consumer's wake up, and reports its percentiles.
+ * Run with: java BlockingHeapQueueBenchmark [consumers] [elements] [pause micros]
+ */
+public class BlockingHeapQueueBenchmark {
+
+	public static void main (String args[]) throws InterruptedException {
+		int consumers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int elements = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		long pause = TimeUnit.MICROSECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 20);
+
+		// Warm up, then measure
+		run(consumers, elements / 10, pause);
+		long[] latencies = run(consumers, elements, pause);
+
+		Arrays.sort(latencies);
+		System.out.println(String.format("%d consumers, %d elements: p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+				consumers, elements, percentile(latencies, 0.5), percentile(latencies, 0.99),
+				percentile(latencies, 0.999), latencies[latencies.length - 1] / 1000.0));
+	}
+
+	/**
+	 * Inserts elements stamped with their insert time, pausing between them so
+	 * that consumers are waiting when each one arrives
+	 * @return the latency of every element, in nanoseconds
+	 */
+	static long[] run(int consumers, int elements, long pause) throws InterruptedException {
+		final BlockingHeapQueue queue = new BlockingHeapQueue(elements + consumers);
+
+		// Each consumer records into its own array, so recording takes no lock
+		final long[][] recorded = new long[consumers][elements];
+		final int[] counts = new int[consumers];
+
+		Thread[] threads = new Thread[consumers];
+		for (int i = 0; i < consumers; i++) {
+			final int consumer = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long[] latencies = recorded[consumer];
+					int count = 0;
+					try {
+						while (true) {
+							HeapElement element = queue.take();
+							long now = System.nanoTime();
+							if (element.getData() == null) {
+								return;
+							}
+							latencies[count++] = now - (Long) element.getData();
+						}
+					} catch (InterruptedException e) {
+						// Stop
+					} finally {
+						counts[consumer] = count;
+					}
+				}
+			});
+			threads[i].start();
+		}
+
+		for (int i = 0; i < elements; i++) {
+			queue.put(new HeapElement(i, System.nanoTime()));
+			LockSupport.parkNanos(pause);
+		}
+
+		// One stop marker per consumer, below every real key
+		for (int i = 0; i < consumers; i++) {
+			queue.put(new HeapElement(-1, null));
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// join makes every consumer's records visible here
+		long[] latencies = new long[elements];
+		int merged = 0;
+		for (int i = 0; i < consumers; i++) {
+			System.arraycopy(recorded[i], 0, latencies, merged, counts[i]);
+			merged += counts[i];
+		}
+		return latencies;
+	}
+
+	/**
+	 * Reads a percentile of sorted latencies
+	 * @return the given percentile of sorted latencies, in microseconds
+	 */
+	static double percentile(long[] sorted, double fraction) {
+		return sorted[(int) Math.min(sorted.length - 1, sorted.length * fraction)] / 1000.0;
+	}
+}
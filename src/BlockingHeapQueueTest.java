@@ -0,0 +1,165 @@
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Blocking heap queue test
+ */
+public class BlockingHeapQueueTest {
+
+	BlockingHeapQueue queue;
+	int[] keys = {7, 1, 4, 9, 25, 1, 19, 87};
+
+	@Before
+	public void setup() {
+		queue = new BlockingHeapQueue(keys.length);
+		for (int key : keys) {
+			queue.offer(new HeapElement(key, "data"));
+		}
+	}
+
+	@After
+	public void teardown() {
+		this.queue = null;
+	}
+
+	/**
+	 * Runs an action on another thread after a short delay
+	 */
+	public Thread later(final Runnable action) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				action.run();
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	@Test
+	public void takeOrderTest() throws InterruptedException {
+		assertEquals(87, queue.peek().getKey());
+		assertEquals(87, queue.take().getKey());
+		assertEquals(25, queue.take().getKey());
+		assertEquals(19, queue.poll().getKey());
+		assertEquals(keys.length - 3, queue.size());
+	}
+
+	@Test
+	public void takeWaitsForPutTest() throws InterruptedException {
+		final BlockingHeapQueue other = new BlockingHeapQueue(1);
+		Thread producer = later(new Runnable() {
+			@Override
+			public void run() {
+				other.offer(new HeapElement(42, "data"));
+			}
+		});
+		assertEquals(42, other.take().getKey());
+		producer.join();
+	}
+
+	@Test
+	public void pollTimeoutTest() throws InterruptedException {
+		BlockingHeapQueue other = new BlockingHeapQueue(1);
+		assertNull(other.poll());
+		assertNull(other.poll(10, TimeUnit.MILLISECONDS));
+		assertNull(other.peek());
+	}
+
+	@Test
+	public void putWaitsForRoomTest() throws InterruptedException {
+		assertFalse(queue.offer(new HeapElement(2, "data")));
+		assertFalse(queue.offer(new HeapElement(2, "data"), 10, TimeUnit.MILLISECONDS));
+		Thread consumer = later(new Runnable() {
+			@Override
+			public void run() {
+				queue.poll();
+			}
+		});
+		queue.put(new HeapElement(100, "data"));
+		consumer.join();
+		assertEquals(0, queue.remainingCapacity());
+		assertEquals(100, queue.peek().getKey());
+	}
+
+	@Test
+	public void takeBatchTest() throws InterruptedException {
+		List<HeapElement> batch = queue.takeBatch(3, 0, TimeUnit.MILLISECONDS);
+		assertEquals(3, batch.size());
+		assertEquals(87, batch.get(0).getKey());
+		assertEquals(25, batch.get(1).getKey());
+		assertEquals(19, batch.get(2).getKey());
+
+		// Only what's left is returned, without waiting for more
+		assertEquals(keys.length - 3, queue.takeBatch(100, 1, TimeUnit.SECONDS).size());
+		assertTrue(queue.takeBatch(100, 10, TimeUnit.MILLISECONDS).isEmpty());
+	}
+
+	@Test
+	public void takeBatchWaitsTest() throws InterruptedException {
+		final BlockingHeapQueue other = new BlockingHeapQueue(4);
+		Thread producer = later(new Runnable() {
+			@Override
+			public void run() {
+				other.offer(new HeapElement(3, "data"));
+			}
+		});
+		List<HeapElement> batch = other.takeBatch(4, 10, TimeUnit.SECONDS);
+		assertEquals(1, batch.size());
+		assertEquals(3, batch.get(0).getKey());
+		producer.join();
+	}
+
+	@Test
+	public void manyConsumersTest() throws InterruptedException {
+		final BlockingHeapQueue other = new BlockingHeapQueue(16);
+		final int[] taken = new int[1];
+		Thread[] consumers = new Thread[4];
+		for (int i = 0; i < consumers.length; i++) {
+			consumers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (other.take().getKey() >= 0) {
+							synchronized (taken) {
+								taken[0]++;
+							}
+						}
+					} catch (InterruptedException e) {
+						// Stop
+					}
+				}
+			});
+			consumers[i].start();
+		}
+		for (int i = 0; i < 1000; i++) {
+			other.put(new HeapElement(i, "data"));
+		}
+
+		// One stop marker per consumer, below every real key
+		for (int i = 0; i < consumers.length; i++) {
+			other.put(new HeapElement(-1, "stop"));
+		}
+		for (Thread consumer : consumers) {
+			consumer.join(10000);
+		}
+		assertEquals(1000, taken[0]);
+		assertEquals(0, other.size());
+	}
+
+	@Test (expected = HeapException.class)
+	public void takeBatchInvalidSizeTest() throws InterruptedException {
+		queue.takeBatch(0, 1, TimeUnit.MILLISECONDS);
+	}
+}
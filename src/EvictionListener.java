@@ -0,0 +1,13 @@
+
+/**
+ * Notified of every element a bounded heap drops when it is full, either
+ * the inserted element itself or the evicted minimum.
+ */
+public interface EvictionListener {
+
+	/**
+	 * Called after an element was dropped from the heap
+	 * @param element - the dropped element
+	 */
+	void evicted(HeapElement element);
+}
@@ -0,0 +1,345 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams a binary heap to and from a channel, in this format:
+ * <pre>
+ * magic      4 bytes, "BHEP"
+ * version    1 byte
+ * codec id   1 byte
+ * capacity   varint
+ * size       varint
+ * elements   size times, in heap order:
+ *   key      zigzag varint of the difference from the previous key
+ *   length   varint, 0 for null data, otherwise the payload length + 1
+ *   payload  length - 1 bytes written by the payload codec
+ * </pre>
+ * Everything after the magic is cut into frames, each a 4 byte length followed
+ * by that many bytes, and a frame of length 0 ends the heap. A reader fills its
+ * buffer with whole frames but never reads past the last one, so several heaps
+ * can follow each other on one channel.
+ * Elements go through a fixed size buffer, so no copy of the heap is made.
+ */
+class HeapSerializer {
+
+	static final int MAGIC = 0x42484550;
+	static final byte VERSION = 1;
+	static final int BUFFER_SIZE = 8192;
+	static final int FRAME_HEADER = 4;
+
+	// Longest payload written inside a buffer frame, longer ones get a frame of their own
+	static final int MAX_INLINE_PAYLOAD = BUFFER_SIZE - FRAME_HEADER;
+
+	// Largest capacity readFrom accepts unless told otherwise
+	static final int DEFAULT_MAX_CAPACITY = 1 << 24;
+
+	// Longest varint of an int
+	static final int MAX_VARINT = 5;
+
+	final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER);
+
+	// Bytes of the current frame not read from the channel yet
+	int frameRemaining;
+
+	/**
+	 * Writes a heap to a channel
+	 * @param heap - the heap to write
+	 * @param channel - the channel to write to
+	 * @param codec - the codec for the elements' data
+	 * @throws IOException - if writing to the channel fails
+	 */
+	void write(BinaryHeap heap, WritableByteChannel channel, PayloadCodec codec) throws IOException {
+		frameHeader.putInt(0, MAGIC);
+		writeFully(channel, frameHeader);
+
+		// Leave room for the first frame's length
+		buffer.position(FRAME_HEADER);
+		buffer.put(VERSION);
+		buffer.put((byte) codec.id());
+		putVarint(heap.elementsArray.length - 1);
+		putVarint(heap.size);
+
+		int previous = 0;
+		for (int i = 1; i <= heap.size; i++) {
+			HeapElement element = heap.elementsArray[i];
+			ensureWritable(channel, MAX_VARINT * 2);
+
+			// The difference may overflow, but it wraps back when added on read
+			int delta = element.key - previous;
+			putVarint((delta << 1) ^ (delta >> 31));
+			previous = element.key;
+
+			if (element.data == null) {
+				putVarint(0);
+				continue;
+			}
+			int length = codec.encodedSize(element.data);
+			putVarint(length + 1);
+
+			// A payload that doesn't fit the buffer gets a frame of its own
+			ByteBuffer target = buffer;
+			if (length > MAX_INLINE_PAYLOAD) {
+				flush(channel);
+				target = ByteBuffer.allocate(length);
+			} else {
+				ensureWritable(channel, length);
+			}
+			int start = target.position();
+			codec.encode(element.data, target);
+			if (target.position() - start != length) {
+				throw new IllegalStateException("Payload codec wrote " + (target.position() - start)
+						+ " bytes instead of " + length);
+			}
+			if (target != buffer) {
+				target.flip();
+				writeFrameHeader(channel, length);
+				writeFully(channel, target);
+			}
+		}
+		flush(channel);
+
+		// The empty frame that ends the heap
+		writeFrameHeader(channel, 0);
+	}
+
+	/**
+	 * Reads a heap written by write. The elements are already in heap order,
+	 * so they are only checked, not rearranged.
+	 * @param channel - the channel to read from
+	 * @param codec - the codec the heap was written with
+	 * @param maxCapacity - the largest capacity to accept
+	 * @return the heap
+	 * @throws IOException - if reading fails or the data is not a valid heap
+	 */
+	BinaryHeap read(ReadableByteChannel channel, PayloadCodec codec, int maxCapacity) throws IOException {
+		readFully(channel, frameHeader);
+		if (frameHeader.getInt(0) != MAGIC) {
+			throw new StreamCorruptedException("Not a binary heap");
+		}
+		buffer.flip();
+		ensureReadable(channel, 2);
+		byte version = buffer.get();
+		if (version != VERSION) {
+			throw new StreamCorruptedException("Unsupported binary heap version " + version);
+		}
+		int codecId = buffer.get() & 0xFF;
+		if (codecId != codec.id()) {
+			throw new StreamCorruptedException("Heap was written with payload codec " + codecId
+					+ ", not " + codec.id());
+		}
+		int capacity = getVarint(channel);
+		int size = getVarint(channel);
+
+		// The constructor adds one to the capacity, so it must stay below the int limit
+		if (capacity < 0 || capacity > maxCapacity || capacity == Integer.MAX_VALUE) {
+			throw new StreamCorruptedException("Invalid heap capacity " + capacity);
+		} else if (size < 0 || size > capacity) {
+			throw new StreamCorruptedException("Invalid heap size " + size + " for capacity " + capacity);
+		}
+
+		BinaryHeap heap = new BinaryHeap(capacity);
+		int previous = 0;
+		for (int i = 1; i <= size; i++) {
+			int zigzag = getVarint(channel);
+			int key = previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+			previous = key;
+			if (i > 1 && key > heap.elementsArray[i / 2].key) {
+				throw new StreamCorruptedException("Element " + i + " breaks the heap order");
+			}
+
+			Object data = null;
+			int length = getVarint(channel) - 1;
+			if (length < -1) {
+				throw new StreamCorruptedException("Invalid payload length for element " + i);
+			} else if (length >= 0) {
+				data = codec.decode(getPayload(channel, length));
+			}
+			heap.elementsArray[i] = new HeapElement(key, data);
+			heap.size = i;
+		}
+
+		// Everything read must belong to the heap, and the end frame must follow
+		if (buffer.hasRemaining() || frameRemaining != 0 || readFrameHeader(channel) != 0) {
+			throw new StreamCorruptedException("Unexpected data after the heap");
+		}
+		return heap;
+	}
+
+	/**
+	 * Writes an unsigned varint, 7 bits per byte
+	 * @param value - the value to write
+	 */
+	void putVarint(int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads an unsigned varint
+	 * @param channel - the channel to read more bytes from
+	 * @return the value
+	 * @throws IOException - if reading fails or the varint is too long
+	 */
+	int getVarint(ReadableByteChannel channel) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 7 * MAX_VARINT; shift += 7) {
+			ensureReadable(channel, 1);
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new StreamCorruptedException("Invalid varint");
+	}
+
+	/**
+	 * Returns a buffer holding exactly the next payload
+	 * @param channel - the channel to read more bytes from
+	 * @param length - the payload length
+	 * @return a buffer over the payload
+	 * @throws IOException - if reading fails, or a long payload isn't alone in its frame
+	 */
+	ByteBuffer getPayload(ReadableByteChannel channel, int length) throws IOException {
+
+		// The writer puts a long payload alone in the next frame, so its length is
+		// checked against that frame before anything is allocated
+		if (length > MAX_INLINE_PAYLOAD) {
+			if (buffer.hasRemaining() || frameRemaining != 0) {
+				throw new StreamCorruptedException("Payload of " + length + " bytes is not in its own frame");
+			}
+			int frameLength = readFrameHeader(channel);
+			if (frameLength != length) {
+				throw new StreamCorruptedException("Payload of " + length + " bytes in a frame of " + frameLength);
+			}
+			frameRemaining = frameLength;
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFramed(channel, payload, length);
+			payload.flip();
+			return payload;
+		}
+		ensureReadable(channel, length);
+		ByteBuffer payload = buffer.slice();
+		payload.limit(length);
+		buffer.position(buffer.position() + length);
+		return payload;
+	}
+
+	/**
+	 * Makes room for a number of bytes, flushing the buffer if needed
+	 */
+	void ensureWritable(WritableByteChannel channel, int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush(channel);
+		}
+	}
+
+	/**
+	 * Writes out everything in the buffer as one frame, and clears it
+	 */
+	void flush(WritableByteChannel channel) throws IOException {
+		if (buffer.position() > FRAME_HEADER) {
+			buffer.putInt(0, buffer.position() - FRAME_HEADER);
+			buffer.flip();
+			writeFully(channel, buffer);
+		}
+		buffer.clear();
+		buffer.position(FRAME_HEADER);
+	}
+
+	/**
+	 * Writes the length of the next frame
+	 */
+	void writeFrameHeader(WritableByteChannel channel, int length) throws IOException {
+		frameHeader.clear();
+		frameHeader.putInt(0, length);
+		writeFully(channel, frameHeader);
+	}
+
+	/**
+	 * Writes all the remaining bytes of a buffer
+	 */
+	static void writeFully(WritableByteChannel channel, ByteBuffer source) throws IOException {
+		while (source.hasRemaining()) {
+			channel.write(source);
+		}
+	}
+
+	/**
+	 * Makes sure the buffer holds at least a number of unread bytes, reading
+	 * more from the channel if needed
+	 * @throws EOFException - if the channel ends first
+	 */
+	void ensureReadable(ReadableByteChannel channel, int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+		buffer.compact();
+		try {
+			readFramed(channel, buffer, bytes);
+		} finally {
+			buffer.flip();
+		}
+	}
+
+	/**
+	 * Reads into a buffer until its position reaches a number of bytes, taking
+	 * as much as fits from each frame but nothing past the current frame
+	 * @param target - the buffer to read into
+	 * @param bytes - the position to reach
+	 * @throws IOException - if reading fails, or the heap's frames end first
+	 */
+	void readFramed(ReadableByteChannel channel, ByteBuffer target, int bytes) throws IOException {
+		while (target.position() < bytes) {
+			if (frameRemaining == 0) {
+				frameRemaining = readFrameHeader(channel);
+				if (frameRemaining == 0) {
+					throw new StreamCorruptedException("The heap ended early");
+				}
+			}
+			int limit = target.limit();
+			target.limit((int) Math.min(limit, (long) target.position() + frameRemaining));
+			int read = channel.read(target);
+			target.limit(limit);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			frameRemaining -= read;
+		}
+	}
+
+	/**
+	 * Reads the length of the next frame
+	 * @return the frame length, 0 for the end of the heap
+	 * @throws IOException - if reading fails or the length is invalid
+	 */
+	int readFrameHeader(ReadableByteChannel channel) throws IOException {
+		readFully(channel, frameHeader);
+		int length = frameHeader.getInt(0);
+		if (length < 0) {
+			throw new StreamCorruptedException("Invalid frame length " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Fills a small buffer from its start, reading exactly its capacity
+	 * @throws EOFException - if the channel ends first
+	 */
+	static void readFully(ReadableByteChannel channel, ByteBuffer target) throws IOException {
+		target.clear();
+		while (target.hasRemaining()) {
+			if (channel.read(target) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+}
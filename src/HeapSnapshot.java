@@ -0,0 +1,95 @@
+import java.util.Iterator;
+
+/**
+ * An immutable, consistent version of a binary heap, published by its writer.
+ * The heap positions are split into chunks of {@link #CHUNK_SIZE} elements, and
+ * a new version copies only the chunks the writer changed since the last one,
+ * sharing the rest. Readers never lock, and every method is wait free.
+ * The elements are copies owned by the snapshots, and must not be modified.
+ */
+public final class HeapSnapshot {
+
+	static final int CHUNK_SHIFT = 6;
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	final HeapElement[][] chunks;
+	final int size;
+	final long version;
+
+	/**
+	 * Constructs a snapshot over a chunk table
+	 * @param chunks - the chunk table, owned by the snapshot from now on
+	 * @param size - the number of elements in the heap
+	 * @param version - the publish number of this snapshot
+	 */
+	HeapSnapshot(HeapElement[][] chunks, int size, long version) {
+		this.chunks = chunks;
+		this.size = size;
+		this.version = version;
+	}
+
+	/**
+	 * Returns the number of elements in the snapshot
+	 * @return size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the snapshot is empty
+	 *
+	 * @return true the snapshot is empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the publish number, which grows by one on every publish
+	 * @return version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Finds the max element
+	 *
+	 * @return the maximum element
+	 * @throws HeapException if the snapshot is empty
+	 */
+	public HeapElement findMax() {
+
+		// If the snapshot is empty
+		if (size == 0) {
+			throw new HeapException("Heap is empty");
+		}
+		return elementAt(1);
+	}
+
+	/**
+	 * Returns an iterator over the elements in descending key order.
+	 * The first k elements cost O(k log k).
+	 *
+	 * @return an iterator from the maximum element down to the minimum
+	 */
+	public Iterator<HeapElement> sortedIterator() {
+		return new SortedHeapIterator(size) {
+			@Override
+			HeapElement elementAt(int position) {
+				return HeapSnapshot.this.elementAt(position);
+			}
+		};
+	}
+
+	/**
+	 * Returns the element at a heap position
+	 * @param position - index in the heap, between 1 and size
+	 * @return the element at that position
+	 */
+	HeapElement elementAt(int position) {
+		return chunks[position >>> CHUNK_SHIFT][position & CHUNK_MASK];
+	}
+}
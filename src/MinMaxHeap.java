@@ -0,0 +1,448 @@
+
+public class MinMaxHeap {
+
+	HeapElement[] elementsArray;
+	int size;
+	
+	// When bounded, a full heap drops its lowest elements instead of throwing
+	boolean bounded;
+	EvictionListener evictionListener;
+	long evictedCount;
+	long rejectedCount;
+
+	/**
+	 * Construct a Min-Max Heap with a given capacity. Elements on even levels
+	 * (the root is level 0) are smaller than all their descendants, and elements
+	 * on odd levels are bigger than all their descendants.
+	 * @param capacity - the max size of the heap. must not be negative
+	 * @throws HeapException - If capacity is negative
+	 */
+	public MinMaxHeap (int capacity) {
+		this(capacity, false);
+	}
+
+	/**
+	 * Construct a Min-Max Heap with a given capacity, that optionally keeps only
+	 * the highest elements once full.
+	 * @param capacity - the max size of the heap. must not be negative
+	 * @param bounded - true to drop the lowest element on insert into a full heap,
+	 * false to throw
+	 * @throws HeapException - If capacity is negative
+	 */
+	public MinMaxHeap (int capacity, boolean bounded) {
+
+		// Throw exception in case capacity's to small
+		if (capacity < 0) {
+			throw new HeapException("Capacity must be bigger than 0");
+		}
+
+		// The array starts at [1] (and not [0])
+		this.size = 0;
+		this.elementsArray = new HeapElement[capacity + 1];
+		this.bounded = bounded;
+	}
+
+	/**
+	 * Inserts a given element into the heap and moves it up to its place.
+	 * A full bounded heap drops the lowest of the new element and its minimum.
+	 * @param val - the element to be added
+	 * @throws HeapException if heap is full and not bounded
+	 */
+	public void insert (HeapElement val) {
+		offer(val);
+	}
+
+	/**
+	 * Inserts a given element into the heap, like insert.
+	 * When a bounded heap is full, a new element that isn't bigger than the
+	 * minimum is rejected, otherwise it replaces the minimum, in O(log n).
+	 * The dropped element is passed to the eviction listener.
+	 * @param val - the element to be added
+	 * @return true if the element was added, false if it was rejected
+	 * @throws HeapException if heap is full and not bounded
+	 */
+	public boolean offer (HeapElement val) {
+
+		// Make sure there's available place in the heap
+		if (size + 1 < elementsArray.length) {
+			size++;
+			elementsArray[size] = val;
+			pushUp(size);
+			return true;
+		} else if (!bounded) {
+			throw new HeapException("The heap if full");
+		}
+
+		// Keep the higher of the new element and the minimum
+		if (size == 0 || val.key <= elementsArray[1].key) {
+			rejectedCount++;
+			notifyEvicted(val);
+			return false;
+		}
+		HeapElement evicted = elementsArray[1];
+		elementsArray[1] = val;
+		pushDown(1);
+		evictedCount++;
+		notifyEvicted(evicted);
+		return true;
+	}
+
+	/**
+	 * Sets the listener notified of every element a bounded heap drops
+	 * @param listener - the listener, or null for none
+	 */
+	public void setEvictionListener(EvictionListener listener) {
+		this.evictionListener = listener;
+	}
+
+	/**
+	 * Returns how many minimum elements were evicted to make room for bigger ones
+	 * @return the evicted count
+	 */
+	public long getEvictedCount() {
+		return evictedCount;
+	}
+
+	/**
+	 * Returns how many inserted elements were rejected for not being bigger
+	 * than the minimum of a full heap
+	 * @return the rejected count
+	 */
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * Checks whether the heap drops its lowest elements when full
+	 * @return true if bounded
+	 */
+	public boolean isBounded() {
+		return bounded;
+	}
+
+	/**
+	 * Finds the min element
+	 *
+	 * @return the minimum element
+	 * @throws HeapException if heap is empty
+	 */
+	public HeapElement findMin() {
+
+		// If the heap is empty
+		if (size == 0) {
+			throw new HeapException("Heap is empty");
+		}
+		return elementsArray[1];
+	}
+
+	/**
+	 * Finds the max element
+	 *
+	 * @return the maximum element
+	 * @throws HeapException if heap is empty
+	 */
+	public HeapElement findMax() {
+
+		// If the heap is empty
+		if (size == 0) {
+			throw new HeapException("Heap is empty");
+		}
+		return elementsArray[maxIndex()];
+	}
+
+	/**
+	 * Deletes the min element
+	 *
+	 * @return the minimum element that was deleted
+	 * @throws HeapException if heap is empty
+	 */
+	public HeapElement deleteMin() {
+
+		// If the heap is empty
+		if (size == 0) {
+			throw new HeapException("Heap is empty");
+		}
+		return deleteAt(1);
+	}
+
+	/**
+	 * Deletes the max element
+	 *
+	 * @return the maximum element that was deleted
+	 * @throws HeapException if heap is empty
+	 */
+	public HeapElement deleteMax() {
+
+		// If the heap is empty
+		if (size == 0) {
+			throw new HeapException("Heap is empty");
+		}
+		return deleteAt(maxIndex());
+	}
+
+	/**
+	 * Accepts a list of elements, and creates a new heap containing those elements
+	 * in linear time
+	 * @param elements - an array of HeapElements to be put in a min-max heap
+	 * @return the new heap
+	 */
+	public static MinMaxHeap buildHeap (HeapElement elements[]) {
+		MinMaxHeap heap = new MinMaxHeap(elements.length);
+
+		// Copy the given "element" array to the object's "elementArray"
+		System.arraycopy(elements, 0, heap.elementsArray, 1, elements.length);
+		heap.size = elements.length;
+
+		// Push down every inner element, starting in the middle of the heap and going upwards
+		for (int i = heap.size / 2; i > 0; i--) {
+			heap.pushDown(i);
+		}
+		return heap;
+	}
+
+	/**
+	 * Returns the number of elements in the heap
+	 * @return size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the heap is empty
+	 *
+	 * @return true the heap is empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Prints the elements with a comma separation
+	 */
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= size; i++) {
+			if (i > 1) {
+				sb.append(", ");
+			}
+			sb.append(elementsArray[i].key);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Passes a dropped element to the eviction listener, if there is one
+	 * @param element - the dropped element
+	 */
+	void notifyEvicted(HeapElement element) {
+		if (evictionListener != null) {
+			evictionListener.evicted(element);
+		}
+	}
+
+	/**
+	 * Returns the index of the max element, which is the root or one of its children
+	 * @return the index of the max element
+	 */
+	int maxIndex() {
+		if (size == 1) {
+			return 1;
+		} else if (size == 2 || elementsArray[2].key >= elementsArray[3].key) {
+			return 2;
+		}
+		return 3;
+	}
+
+	/**
+	 * Removes the element at a given index, replacing it with the last one
+	 * @param index - of the element to be removed
+	 * @return the removed element
+	 */
+	HeapElement deleteAt(int index) {
+		HeapElement deleted = elementsArray[index];
+		elementsArray[index] = elementsArray[size];
+		elementsArray[size] = null;
+		size--;
+		if (index <= size) {
+			pushDown(index);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Checks whether an index is on a min (even) level
+	 * @param index - index of the element
+	 * @return true if on a min level, false if on a max level
+	 */
+	static boolean isMinLevel(int index) {
+		return ((31 - Integer.numberOfLeadingZeros(index)) & 1) == 0;
+	}
+
+	/**
+	 * Moves an element up to its place, first deciding whether it belongs to
+	 * the min levels or the max levels
+	 * @param index - the index of the element to be moved
+	 */
+	void pushUp(int index) {
+		if (index == 1) {
+			return;
+		}
+		int parent = index / 2;
+		if (isMinLevel(index)) {
+			if (elementsArray[index].key > elementsArray[parent].key) {
+				swap(index, parent);
+				pushUpMax(parent);
+			} else {
+				pushUpMin(index);
+			}
+		} else {
+			if (elementsArray[index].key < elementsArray[parent].key) {
+				swap(index, parent);
+				pushUpMin(parent);
+			} else {
+				pushUpMax(index);
+			}
+		}
+	}
+
+	/**
+	 * Moves an element up the min levels, through its grandparents
+	 * @param index - the index of the element to be moved
+	 */
+	void pushUpMin(int index) {
+		while (index >= 4 && elementsArray[index].key < elementsArray[index / 4].key) {
+			swap(index, index / 4);
+			index = index / 4;
+		}
+	}
+
+	/**
+	 * Moves an element up the max levels, through its grandparents
+	 * @param index - the index of the element to be moved
+	 */
+	void pushUpMax(int index) {
+		while (index >= 4 && elementsArray[index].key > elementsArray[index / 4].key) {
+			swap(index, index / 4);
+			index = index / 4;
+		}
+	}
+
+	/**
+	 * Moves an element down to its place
+	 * @param index - the index of the element to be moved
+	 */
+	void pushDown(int index) {
+		if (isMinLevel(index)) {
+			pushDownMin(index);
+		} else {
+			pushDownMax(index);
+		}
+	}
+
+	/**
+	 * Moves an element on a min level down, swapping it with its smallest
+	 * child or grandchild
+	 * @param index - the index of the element to be moved
+	 */
+	void pushDownMin(int index) {
+		while (index * 2 <= size) {
+			int smallest = smallestDescendant(index);
+			if (elementsArray[smallest].key >= elementsArray[index].key) {
+				return;
+			}
+			swap(smallest, index);
+
+			// A child is a leaf of this subtree, so the element is in place
+			if (smallest < index * 4) {
+				return;
+			}
+
+			// A grandchild may now be bigger than its max level parent
+			if (elementsArray[smallest].key > elementsArray[smallest / 2].key) {
+				swap(smallest, smallest / 2);
+			}
+			index = smallest;
+		}
+	}
+
+	/**
+	 * Moves an element on a max level down, swapping it with its biggest
+	 * child or grandchild
+	 * @param index - the index of the element to be moved
+	 */
+	void pushDownMax(int index) {
+		while (index * 2 <= size) {
+			int biggest = biggestDescendant(index);
+			if (elementsArray[biggest].key <= elementsArray[index].key) {
+				return;
+			}
+			swap(biggest, index);
+
+			// A child is a leaf of this subtree, so the element is in place
+			if (biggest < index * 4) {
+				return;
+			}
+
+			// A grandchild may now be smaller than its min level parent
+			if (elementsArray[biggest].key < elementsArray[biggest / 2].key) {
+				swap(biggest, biggest / 2);
+			}
+			index = biggest;
+		}
+	}
+
+	/**
+	 * Finds the smallest of the children and grandchildren of an element
+	 * @param index - index of an element with at least one child
+	 * @return index of the smallest descendant within two levels
+	 */
+	int smallestDescendant(int index) {
+		int smallest = index * 2;
+		int last = Math.min(size, index * 4 + 3);
+
+		// The right child, then the grandchildren, which are consecutive
+		if (index * 2 + 1 <= size && elementsArray[index * 2 + 1].key < elementsArray[smallest].key) {
+			smallest = index * 2 + 1;
+		}
+		for (int i = index * 4; i <= last; i++) {
+			if (elementsArray[i].key < elementsArray[smallest].key) {
+				smallest = i;
+			}
+		}
+		return smallest;
+	}
+
+	/**
+	 * Finds the biggest of the children and grandchildren of an element
+	 * @param index - index of an element with at least one child
+	 * @return index of the biggest descendant within two levels
+	 */
+	int biggestDescendant(int index) {
+		int biggest = index * 2;
+		int last = Math.min(size, index * 4 + 3);
+
+		// The right child, then the grandchildren, which are consecutive
+		if (index * 2 + 1 <= size && elementsArray[index * 2 + 1].key > elementsArray[biggest].key) {
+			biggest = index * 2 + 1;
+		}
+		for (int i = index * 4; i <= last; i++) {
+			if (elementsArray[i].key > elementsArray[biggest].key) {
+				biggest = i;
+			}
+		}
+		return biggest;
+	}
+
+	/**
+	 * Swaps two elements
+	 * @param i - index of the first element
+	 * @param j - index of the second element
+	 */
+	void swap(int i, int j) {
+		HeapElement temp = elementsArray[i];
+		elementsArray[i] = elementsArray[j];
+		elementsArray[j] = temp;
+	}
+}
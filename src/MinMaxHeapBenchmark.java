@@ -0,0 +1,162 @@
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * Compares a MinMaxHeap with the two mirrored BinaryHeaps it replaces, on a
+ * priority buffer that serves the highest element and evicts the lowest one.
+ * Run with: java MinMaxHeapBenchmark [elements] [rounds]
+ */
+public class MinMaxHeapBenchmark {
+
+	// Keeps the results alive so the measured work isn't optimized away
+	static long sink;
+
+	// Largest size either mirrored heap reached in the last run, deleted entries included
+	static int twinPeakSize;
+
+	/**
+	 * An entry shared by both mirrored heaps, deleted lazily from the other side
+	 */
+	static class Entry {
+		boolean removed;
+	}
+
+	/**
+	 * Both ends of a buffer kept in a max heap and a heap of negated keys.
+	 * A side is purged of deleted entries once they outnumber the live ones,
+	 * so each side holds at most twice the live entries.
+	 */
+	static class TwinHeap {
+		BinaryHeap max;
+		BinaryHeap min;
+		int live;
+		int maxDead;
+		int minDead;
+		int peakSize;
+
+		// Number of deleted entries the last pop skipped
+		int skipped;
+
+		TwinHeap(int capacity) {
+			max = new BinaryHeap(capacity * 2 + 1);
+			min = new BinaryHeap(capacity * 2 + 1);
+		}
+
+		void insert(int key) {
+			Entry entry = new Entry();
+			max.insert(new HeapElement(key, entry));
+			min.insert(new HeapElement(-key, entry));
+			live++;
+			peakSize = Math.max(peakSize, Math.max(max.size, min.size));
+		}
+
+		int deleteMax() {
+			int key = pop(max);
+			maxDead -= skipped;
+			minDead++;
+			if (minDead > live) {
+				min.removeIf(DEAD);
+				minDead = 0;
+			}
+			return key;
+		}
+
+		int deleteMin() {
+			int key = -pop(min);
+			minDead -= skipped;
+			maxDead++;
+			if (maxDead > live) {
+				max.removeIf(DEAD);
+				maxDead = 0;
+			}
+			return key;
+		}
+
+		/**
+		 * Deletes the top of one side, skipping entries already deleted from the other side
+		 */
+		int pop(BinaryHeap heap) {
+			skipped = 0;
+			while (true) {
+				HeapElement top = heap.deleteMax();
+				Entry entry = (Entry) top.getData();
+				if (!entry.removed) {
+					entry.removed = true;
+					live--;
+					return top.getKey();
+				}
+				skipped++;
+			}
+		}
+	}
+
+	static final Predicate<HeapElement> DEAD = new Predicate<HeapElement>() {
+		@Override
+		public boolean test(HeapElement element) {
+			return ((Entry) element.getData()).removed;
+		}
+	};
+
+	public static void main (String args[]) {
+		int elements = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+		// Warm up both, then measure
+		for (int run = 0; run < 3; run++) {
+			long minMax = runMinMax(elements, rounds);
+			long twin = runTwin(elements, rounds);
+			System.out.println(String.format("run %d: MinMaxHeap %.1f ns/op (%d elements), "
+					+ "two BinaryHeaps %.1f ns/op (%d live, up to %d entries per side)",
+					run, (double) minMax / rounds, elements, (double) twin / rounds, elements, twinPeakSize));
+		}
+		System.out.println("checksum " + sink);
+	}
+
+	/**
+	 * Runs the buffer workload on a single MinMaxHeap
+	 * @return the elapsed nanoseconds of the rounds
+	 */
+	static long runMinMax(int elements, int rounds) {
+		Random random = new Random(1);
+		HeapElement[] initial = new HeapElement[elements];
+		for (int i = 0; i < elements; i++) {
+			initial[i] = new HeapElement(random.nextInt(1 << 20), null);
+		}
+		MinMaxHeap heap = MinMaxHeap.buildHeap(initial);
+
+		long start = System.nanoTime();
+		long checksum = 0;
+		for (int i = 0; i < rounds; i++) {
+			checksum += (i & 1) == 0 ? heap.deleteMax().getKey() : heap.deleteMin().getKey();
+			heap.insert(new HeapElement(random.nextInt(1 << 20), null));
+		}
+		long elapsed = System.nanoTime() - start;
+		sink += checksum;
+		return elapsed;
+	}
+
+	/**
+	 * Runs the buffer workload on two mirrored BinaryHeaps
+	 * @return the elapsed nanoseconds of the rounds
+	 */
+	static long runTwin(int elements, int rounds) {
+		Random random = new Random(1);
+
+		// Deleted entries linger on the other side until they reach its top or are purged
+		TwinHeap heap = new TwinHeap(elements + 1);
+		for (int i = 0; i < elements; i++) {
+			heap.insert(random.nextInt(1 << 20));
+		}
+
+		long start = System.nanoTime();
+		long checksum = 0;
+		for (int i = 0; i < rounds; i++) {
+			checksum += (i & 1) == 0 ? heap.deleteMax() : heap.deleteMin();
+			heap.insert(random.nextInt(1 << 20));
+		}
+		long elapsed = System.nanoTime() - start;
+		sink += checksum;
+		twinPeakSize = heap.peakSize;
+		return elapsed;
+	}
+}
@@ -0,0 +1,206 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Min-max heap test
+ */
+public class MinMaxHeapTest {
+
+	MinMaxHeap heap;
+	MinMaxHeap empty;
+	HeapElement[] initialArray;
+	int[] keys = {7, 1, 4, 9, 25, 1, 19, 87, 3, 12};
+
+	@Before
+	public void setup() {
+		initialArray = new HeapElement[keys.length];
+
+		for (int i = 0; i < initialArray.length; i++) {
+			initialArray[i] = new HeapElement (keys[i], "data");
+		}
+		this.heap = MinMaxHeap.buildHeap (initialArray);
+		empty = new MinMaxHeap(0);
+	}
+
+	@After
+	public void teardown() {
+		this.heap = null;
+		this.empty = null;
+	}
+
+	/**
+	 * Makes sure the heap holds exactly the given keys, by deleting from both ends.
+	 * @param minMax the heap to test
+	 * @param expected the expected keys, in any order
+	 */
+	public void validateHeap (MinMaxHeap minMax, int[] expected) {
+		int[] sorted = expected.clone();
+		Arrays.sort(sorted);
+		int low = 0;
+		int high = sorted.length - 1;
+
+		// Alternate between both ends
+		while (low <= high) {
+			assertEquals(sorted[low], minMax.findMin().getKey());
+			assertEquals(sorted[high], minMax.findMax().getKey());
+			if ((low + high) % 2 == 0) {
+				assertEquals(sorted[low++], minMax.deleteMin().getKey());
+			} else {
+				assertEquals(sorted[high--], minMax.deleteMax().getKey());
+			}
+		}
+		assertTrue(minMax.isEmpty());
+	}
+
+	@Test
+	public void buildHeapTest() {
+		validateHeap(heap, keys);
+	}
+
+	@Test
+	public void insertTest() {
+		MinMaxHeap other = new MinMaxHeap(keys.length);
+		for (int key : keys) {
+			other.insert(new HeapElement(key, "data"));
+		}
+		validateHeap(other, keys);
+	}
+
+	@Test
+	public void findMinMaxTest() {
+		assertEquals(1, heap.findMin().getKey());
+		assertEquals(87, heap.findMax().getKey());
+	}
+
+	@Test
+	public void deleteMinTest() {
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		for (int key : sorted) {
+			assertEquals(key, heap.deleteMin().getKey());
+		}
+	}
+
+	@Test
+	public void deleteMaxTest() {
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		for (int i = sorted.length - 1; i >= 0; i--) {
+			assertEquals(sorted[i], heap.deleteMax().getKey());
+		}
+	}
+
+	@Test
+	public void randomTest() {
+		Random random = new Random(42);
+		MinMaxHeap other = new MinMaxHeap(500);
+		int[] present = new int[500];
+		int count = 0;
+
+		// Random inserts and deletes from both ends, checked against a sorted array
+		for (int round = 0; round < 5000; round++) {
+			int action = random.nextInt(3);
+			if (count < 500 && (count == 0 || action == 0)) {
+				int key = random.nextInt(200) - 100;
+				other.insert(new HeapElement(key, null));
+				present[count++] = key;
+			} else {
+				Arrays.sort(present, 0, count);
+				if (action == 1) {
+					assertEquals(present[0], other.deleteMin().getKey());
+					System.arraycopy(present, 1, present, 0, --count);
+				} else {
+					assertEquals(present[--count], other.deleteMax().getKey());
+				}
+			}
+			assertEquals(count, other.size());
+		}
+		validateHeap(other, Arrays.copyOf(present, count));
+	}
+
+	@Test (expected = HeapException.class)
+	public void insertOverflowTest() {
+		heap.insert(new HeapElement(2, "data"));
+	}
+
+	@Test (expected = HeapException.class)
+	public void findMinOnEmptyHeapTest() {
+		empty.findMin();
+	}
+
+	@Test (expected = HeapException.class)
+	public void deleteMaxOnEmptyHeapTest() {
+		empty.deleteMax();
+	}
+
+	@Test
+	public void toStringTest() {
+		MinMaxHeap other = new MinMaxHeap(3);
+		other.insert(new HeapElement(4, "data"));
+		other.insert(new HeapElement(1, "data"));
+		other.insert(new HeapElement(9, "data"));
+		assertEquals("1, 4, 9", other.toString());
+		assertEquals("", empty.toString());
+	}
+
+	@Test
+	public void boundedKeepsHighestTest() {
+		MinMaxHeap bounded = new MinMaxHeap(3, true);
+		final List<Integer> dropped = new ArrayList<Integer>();
+		bounded.setEvictionListener(new EvictionListener() {
+			@Override
+			public void evicted(HeapElement element) {
+				dropped.add(element.getKey());
+			}
+		});
+		for (int key : keys) {
+			bounded.insert(new HeapElement(key, "data"));
+		}
+
+		// Only the 3 highest keys are left, the rest were rejected or evicted
+		assertEquals(keys.length - 3, dropped.size());
+		assertEquals(keys.length - 3, bounded.getEvictedCount() + bounded.getRejectedCount());
+		assertEquals(4, bounded.getEvictedCount());
+		validateHeap(bounded, new int[] {19, 25, 87});
+	}
+
+	@Test
+	public void boundedOfferTest() {
+		MinMaxHeap bounded = new MinMaxHeap(2, true);
+		assertTrue(bounded.offer(new HeapElement(5, null)));
+		assertTrue(bounded.offer(new HeapElement(10, null)));
+		assertFalse(bounded.offer(new HeapElement(5, null)));
+		assertTrue(bounded.offer(new HeapElement(20, null)));
+		assertEquals(1, bounded.getRejectedCount());
+		assertEquals(1, bounded.getEvictedCount());
+		validateHeap(bounded, new int[] {10, 20});
+	}
+
+	@Test
+	public void boundedRandomTest() {
+		Random random = new Random(7);
+		MinMaxHeap bounded = new MinMaxHeap(50, true);
+		int[] all = new int[2000];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = random.nextInt(1000);
+			bounded.insert(new HeapElement(all[i], null));
+		}
+		Arrays.sort(all);
+		validateHeap(bounded, Arrays.copyOfRange(all, all.length - 50, all.length));
+	}
+
+	@Test
+	public void boundedEmptyCapacityTest() {
+		MinMaxHeap bounded = new MinMaxHeap(0, true);
+		assertFalse(bounded.offer(new HeapElement(5, null)));
+		assertEquals(1, bounded.getRejectedCount());
+	}
+}
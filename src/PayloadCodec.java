@@ -0,0 +1,147 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the data of heap elements for {@link BinaryHeap#writeTo}.
+ * Null data is handled by the format itself and never reaches a codec.
+ */
+public interface PayloadCodec {
+
+	/**
+	 * Returns the id written in the header, so a reader can refuse data written
+	 * with another codec
+	 * @return an id between 0 and 255
+	 */
+	int id();
+
+	/**
+	 * Returns the exact number of bytes encode will write
+	 * @param data - non null element data
+	 * @return the encoded size in bytes
+	 */
+	int encodedSize(Object data);
+
+	/**
+	 * Writes the data to the buffer, which has at least encodedSize(data) bytes left
+	 * @param data - non null element data
+	 * @param buffer - the buffer to write to
+	 */
+	void encode(Object data, ByteBuffer buffer);
+
+	/**
+	 * Reads data written by encode. The buffer may be a view over the reader's
+	 * own buffer, so it must not be kept after the call.
+	 * @param buffer - a buffer holding exactly the encoded bytes
+	 * @return the decoded data
+	 */
+	Object decode(ByteBuffer buffer);
+
+	/**
+	 * Drops all data, only keys are kept
+	 */
+	PayloadCodec NONE = new PayloadCodec() {
+
+		@Override
+		public int id() {
+			return 0;
+		}
+
+		@Override
+		public int encodedSize(Object data) {
+			return 0;
+		}
+
+		@Override
+		public void encode(Object data, ByteBuffer buffer) {
+		}
+
+		@Override
+		public Object decode(ByteBuffer buffer) {
+			return null;
+		}
+	};
+
+	/**
+	 * Writes text data, or the toString() of other data, as UTF-8 straight into
+	 * the buffer, and reads it back as a String
+	 */
+	PayloadCodec UTF8 = new PayloadCodec() {
+
+		@Override
+		public int id() {
+			return 1;
+		}
+
+		@Override
+		public int encodedSize(Object data) {
+			CharSequence s = text(data);
+			int length = 0;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c < 0x80) {
+					length += 1;
+				} else if (c < 0x800) {
+					length += 2;
+				} else if (isPair(s, i)) {
+					length += 4;
+					i++;
+				} else if (Character.isSurrogate(c)) {
+
+					// An unpaired surrogate is encoded as '?'
+					length += 1;
+				} else {
+					length += 3;
+				}
+			}
+			return length;
+		}
+
+		@Override
+		public void encode(Object data, ByteBuffer buffer) {
+
+			// Encoded one char at a time, following the same rules as encodedSize
+			CharSequence s = text(data);
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c < 0x80) {
+					buffer.put((byte) c);
+				} else if (c < 0x800) {
+					buffer.put((byte) (0xC0 | (c >> 6)));
+					buffer.put((byte) (0x80 | (c & 0x3F)));
+				} else if (isPair(s, i)) {
+					int codePoint = Character.toCodePoint(c, s.charAt(++i));
+					buffer.put((byte) (0xF0 | (codePoint >> 18)));
+					buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+					buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+					buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+				} else if (Character.isSurrogate(c)) {
+					buffer.put((byte) '?');
+				} else {
+					buffer.put((byte) (0xE0 | (c >> 12)));
+					buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+					buffer.put((byte) (0x80 | (c & 0x3F)));
+				}
+			}
+		}
+
+		/**
+		 * Returns the data itself when it is already text, so Strings are never copied
+		 */
+		CharSequence text(Object data) {
+			return (data instanceof CharSequence) ? (CharSequence) data : data.toString();
+		}
+
+		/**
+		 * Checks whether a high surrogate at an index is followed by a low one
+		 */
+		boolean isPair(CharSequence s, int i) {
+			return Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length()
+					&& Character.isLowSurrogate(s.charAt(i + 1));
+		}
+
+		@Override
+		public Object decode(ByteBuffer buffer) {
+			return StandardCharsets.UTF_8.decode(buffer).toString();
+		}
+	};
+}
@@ -0,0 +1,109 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks a heap in descending order using a max heap of heap positions.
+ * The frontier starts with the root, and every returned position is replaced
+ * by its children, so it never holds more than k + 1 positions.
+ * The walked heap must not change while iterating.
+ */
+abstract class SortedHeapIterator implements Iterator<HeapElement> {
+
+	int[] frontier = new int[16];
+	int frontierSize;
+	final int size;
+
+	/**
+	 * @param size - number of elements in the heap, stored at positions 1 to size
+	 */
+	SortedHeapIterator(int size) {
+		this.size = size;
+		if (size > 0) {
+			frontier[1] = 1;
+			frontierSize = 1;
+		}
+	}
+
+	/**
+	 * Returns the element stored at a heap position
+	 * @param position - index in the heap, between 1 and size
+	 * @return the element at that position
+	 */
+	abstract HeapElement elementAt(int position);
+
+	@Override
+	public boolean hasNext() {
+		return frontierSize > 0;
+	}
+
+	@Override
+	public HeapElement next() {
+		if (frontierSize == 0) {
+			throw new NoSuchElementException();
+		}
+		int top = frontier[1];
+
+		// Replace the returned position with its last frontier entry and sift it down
+		frontier[1] = frontier[frontierSize];
+		frontierSize--;
+		siftDown(1);
+
+		// Its children are the only new candidates for the next maximum
+		if (top * 2 <= size) {
+			add(top * 2);
+		}
+		if (top * 2 + 1 <= size) {
+			add(top * 2 + 1);
+		}
+		return elementAt(top);
+	}
+
+	/**
+	 * Adds a heap position to the frontier and sifts it up
+	 * @param position - index in the heap
+	 */
+	void add(int position) {
+		frontierSize++;
+		if (frontierSize == frontier.length) {
+			frontier = Arrays.copyOf(frontier, frontier.length * 2);
+		}
+		int index = frontierSize;
+		int key = elementAt(position).key;
+		while (index > 1 && elementAt(frontier[index / 2]).key < key) {
+			frontier[index] = frontier[index / 2];
+			index = index / 2;
+		}
+		frontier[index] = position;
+	}
+
+	/**
+	 * Sifts a frontier entry down to its place
+	 * @param index - index in the frontier
+	 */
+	void siftDown(int index) {
+		if (frontierSize == 0) {
+			return;
+		}
+		int position = frontier[index];
+		int key = elementAt(position).key;
+		while (index * 2 <= frontierSize) {
+			int child = index * 2;
+			if (child < frontierSize && elementAt(frontier[child + 1]).key >
+					elementAt(frontier[child]).key) {
+				child++;
+			}
+			if (key >= elementAt(frontier[child]).key) {
+				break;
+			}
+			frontier[index] = frontier[child];
+			index = child;
+		}
+		frontier[index] = position;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}